@@ -6,13 +6,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.reflect.*;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class Main {
 
-    // Path for the output file and the number of top entries to include
+    // Path for the output file and the number of top entries to include, or the reports to compute instead
     private static String outputFilePath;
     private static int topN;
+    private static List<ReportEngine.ReportSpec> reportSpecs;
     private static List<Class<?>> classes;
 
     // Maps to store counts of fields, methods, subtypes, and supertypes for each class
@@ -23,28 +23,50 @@ public class Main {
                                               subtypesTotal = new HashMap<>(), 
                                               supertypesTotal = new HashMap<>();
 
+    // Rollups of the same counts to the enclosing top-level class, package and module, plus the number of classes in each,
+    // reported on request through metrics such as "1a/package"
+    private static final Rollup classesRollup = new Rollup(),
+                                fieldsDeclaredRollup = new Rollup(),
+                                fieldsAllRollup = new Rollup(),
+                                methodsDeclaredRollup = new Rollup(),
+                                methodsAllRollup = new Rollup(),
+                                subtypesRollup = new Rollup(),
+                                supertypesRollup = new Rollup();
+
     public static void main(String[] args) {
 
         // Handle command-line arguments to set file paths and topN limit
         switch (args.length) {
             case 1 -> {
-                // Case with 1 argument: Set topN, default output file path, and load all JDK classes
-                topN = Integer.parseInt(args[0]);
+                // Case with 1 argument: Set topN or reports, default output file path, and load all JDK classes
+                if (!parseReportArgument(args[0])) return;
                 outputFilePath = "resources" + File.separator + "output.txt";
                 classes = ClassScanner.totalClasses();
             }
+            case 2 -> {
+                // Case with 2 arguments: Set an explicit --out file and topN or reports, then load all JDK classes
+                if (!args[0].startsWith("--out=") || args[0].length() == "--out=".length()) {
+                    printUsage();
+                    return;
+                }
+                outputFilePath = args[0].substring("--out=".length());
+                if (looksLikeClassList(outputFilePath)) {
+                    System.out.println("Refusing to overwrite " + outputFilePath + ": it looks like a list of class names");
+                    return;
+                }
+                if (!parseReportArgument(args[1])) return;
+                classes = ClassScanner.totalClasses();
+            }
             case 3 -> {
-                // Case with 3 arguments: Set input and output file paths and topN, then load classes
+                // Case with 3 arguments: Set input and output file paths and topN or reports, then load classes
                 String inputFilePath = args[0];
                 outputFilePath = args[1];
-                topN = Integer.parseInt(args[2]);
+                if (!parseReportArgument(args[2])) return;
                 classes = inputClasses(new ArrayList<>(), inputFilePath);
             }
             default -> {
                 // Invalid usage; print instructions and exit
-                System.out.println("Invalid arguments. Usage:");
-                System.out.println("1 argument: java Main <value-of-N>");
-                System.out.println("3 arguments: java Main <input-file> <output-file> <value-of-N>");
+                printUsage();
                 return;
             }
         }
@@ -54,18 +76,135 @@ public class Main {
             System.out.println("Found " + classes.size() + " Classes");
             classes.stream().forEach(clazz -> exploreHierarchy(clazz));  // Analyze each class's hierarchy
 
-            // Prepare output lines with results for fields, methods, subtypes, and supertypes
-            List<String> outputLines = new ArrayList<>();
-            outputLines.add("1a: " + sortMapByValueToString(fieldsDeclared, topN));
-            outputLines.add("1b: " + sortMapByValueToString(fieldsAll, topN));
-            outputLines.add("2a: " + sortMapByValueToString(methodsDeclared, topN));
-            outputLines.add("2b: " + sortMapByValueToString(methodsAll, topN));
-            outputLines.add("3: " + sortMapByValueToString(subtypesTotal, topN));
-            outputLines.add("4: " + sortMapByValueToString(supertypesTotal, topN));
+            // Compute all requested reports from the shared results, as JSON for a .json output file
+            if (reportSpecs != null) {
+                ReportEngine engine = new ReportEngine(metrics());
+                writeFile(outputFilePath, outputFilePath.endsWith(".json") ? engine.toJson(reportSpecs) : engine.toText(reportSpecs));
+                return;
+            }
 
             // Write results to the specified output file
-            writeFile(outputFilePath, outputLines);
+            writeFile(outputFilePath, outputLines(topN));
+        }
+    }
+
+    /**
+     * Prints the command-line usage instructions.
+     */
+    private static void printUsage() {
+        System.out.println("Invalid arguments. Usage:");
+        System.out.println("1 argument: java Main <value-of-N|report-specs>");
+        System.out.println("2 arguments: java Main --out=<output-file> <value-of-N|report-specs>");
+        System.out.println("3 arguments: java Main <input-file> <output-file> <value-of-N|report-specs>");
+        System.out.println("Report specs: metric[:top=N,...][:hist=bound,...][:pct=P,...] separated by ';'");
+    }
+
+    /**
+     * Checks whether a file exists and starts with a fully qualified class name, like an input file does.
+     * @param filePath Path of the file to check
+     * @return true if the file looks like a list of class names
+     */
+    private static boolean looksLikeClassList(String filePath) {
+        File file = new File(filePath);
+        if (!file.isFile()) return false;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (!line.isBlank()) return line.trim().matches("[\\w$]+(\\.[\\w$]+)+");
+            }
+        } catch (IOException e) {
+            System.out.println("An error occurred while reading the file: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Ranks the analyzed classes and formats the top N entries of every metric as the default output.
+     * @param topN The maximum number of top entries to include
+     * @return List of formatted output lines
+     */
+    static List<String> outputLines(int topN) {
+        ReportEngine engine = new ReportEngine(metrics());
+
+        // Prepare output lines with results for fields, methods, subtypes, and supertypes
+        List<String> outputLines = new ArrayList<>();
+        for (String metric : List.of("1a", "1b", "2a", "2b", "3", "4")) {
+            outputLines.add(metric + ": " + engine.formatTop(metric, topN));
+        }
+        return outputLines;
+    }
+
+    /**
+     * Clears the results of previous runs, so repeated analyses in the same JVM do not accumulate counts.
+     */
+    static void reset() {
+        fieldsDeclared.clear();
+        fieldsAll.clear();
+        methodsDeclared.clear();
+        methodsAll.clear();
+        subtypesTotal.clear();
+        supertypesTotal.clear();
+        classesRollup.reset();
+        fieldsDeclaredRollup.reset();
+        fieldsAllRollup.reset();
+        methodsDeclaredRollup.reset();
+        methodsAllRollup.reset();
+        subtypesRollup.reset();
+        supertypesRollup.reset();
+        reportSpecs = null;
+    }
+
+    /**
+     * Parses the last argument as either the number of top entries or a list of report specifications.
+     * @param argument The value of N, or report specifications such as "2b:top=10,100:pct=50,90"
+     * @return true if the argument is valid, false after printing the reason otherwise
+     */
+    private static boolean parseReportArgument(String argument) {
+        if (argument.matches("-?\\d+")) {
+            try {
+                topN = Integer.parseInt(argument);
+            } catch (NumberFormatException e) {
+                topN = -1;
+            }
+            if (topN < 0) {
+                System.out.println("Invalid value of N: " + argument + ", N must be a non-negative integer");
+                return false;
+            }
+            reportSpecs = null;  // A plain N always selects the default output
+            return true;
         }
+        try {
+            // Validate the specifications before scanning, so mistakes do not cost a full scan
+            reportSpecs = ReportEngine.ReportSpec.parseAll(argument);
+            new ReportEngine(metrics()).validate(reportSpecs);
+            return true;
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid report specification: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Collects the result maps of the analysis by metric name, including each rollup level.
+     * @return Map from metric name to its counts
+     */
+    static Map<String, Map<String, Integer>> metrics() {
+        Map<String, Map<String, Integer>> metrics = new LinkedHashMap<>();
+        metrics.put("1a", fieldsDeclared);
+        metrics.put("1b", fieldsAll);
+        metrics.put("2a", methodsDeclared);
+        metrics.put("2b", methodsAll);
+        metrics.put("3", subtypesTotal);
+        metrics.put("4", supertypesTotal);
+        classesRollup.addMetrics(metrics, "classes");
+        fieldsDeclaredRollup.addMetrics(metrics, "1a");
+        fieldsAllRollup.addMetrics(metrics, "1b");
+        methodsDeclaredRollup.addMetrics(metrics, "2a");
+        methodsAllRollup.addMetrics(metrics, "2b");
+        subtypesRollup.addMetrics(metrics, "3");
+        supertypesRollup.addMetrics(metrics, "4");
+        return metrics;
     }
 
     /**
@@ -105,7 +244,7 @@ public class Main {
      * Analyzes each class by counting its declared fields, methods, subtypes, and supertypes.
      * @param clazz The class to be analyzed
      */
-    private static void exploreHierarchy(Class<?> clazz) {
+    static void exploreHierarchy(Class<?> clazz) {
 
         // Sets to track unique field names, method names, and supertypes for each class
         Set<String> uniqueFieldNames = new HashSet<>(), 
@@ -116,6 +255,9 @@ public class Main {
         for (Field field : clazz.getDeclaredFields()) uniqueFieldNames.add(field.getName());
         for (Method method : clazz.getDeclaredMethods()) uniqueMethodNames.add(method.getName());
 
+        // A class listed twice overwrites its per-class counts, so it must only be added to the rollups once
+        boolean firstVisit = !fieldsDeclared.containsKey(clazz.getName());
+
         // Store counts for declared fields and methods
         fieldsDeclared.put(clazz.getName(), uniqueFieldNames.size());
         methodsDeclared.put(clazz.getName(), uniqueMethodNames.size());
@@ -127,6 +269,16 @@ public class Main {
         fieldsAll.put(clazz.getName(), uniqueFieldNames.size());
         methodsAll.put(clazz.getName(), uniqueMethodNames.size());
         supertypesTotal.put(clazz.getName(), supertypes.size());
+
+        // Accumulate the same counts into the rollups of the class
+        if (firstVisit) {
+            classesRollup.add(clazz, 1);
+            fieldsDeclaredRollup.add(clazz, fieldsDeclared.get(clazz.getName()));
+            fieldsAllRollup.add(clazz, uniqueFieldNames.size());
+            methodsDeclaredRollup.add(clazz, methodsDeclared.get(clazz.getName()));
+            methodsAllRollup.add(clazz, uniqueMethodNames.size());
+            supertypesRollup.add(clazz, supertypes.size());
+        }
     }
 
     /**
@@ -150,6 +302,7 @@ public class Main {
                 if (!Modifier.isPrivate(method.getModifiers())) uniqueMethodNames.add(method.getName());
             }
             subtypesTotal.put(superclass.getName(), subtypesTotal.getOrDefault(superclass.getName(), 0) + 1);
+            subtypesRollup.add(superclass, 1);
             supertypes.add(superclass.getName());
 
             // Recursive call to explore superclass hierarchy
@@ -163,6 +316,7 @@ public class Main {
                 if (!Modifier.isPrivate(method.getModifiers())) uniqueMethodNames.add(method.getName());
             }
             subtypesTotal.put(superInterface.getName(), subtypesTotal.getOrDefault(superInterface.getName(), 0) + 1);
+            subtypesRollup.add(superInterface, 1);
             supertypes.add(superInterface.getName());
 
             // Recursive call to explore interface hierarchy
@@ -190,22 +344,61 @@ public class Main {
     }
 
     /**
-    * Sorts a map by value in descending order and returns a formatted string of the top N entries.
-    * @param entries Map with class names as keys and counts as values
-    * @param topN The maximum number of top entries to include
-    * @return Formatted string of the top N entries
-    */
-    private static String sortMapByValueToString(Map<String, Integer> entries, int topN) {
-        return entries.entrySet().stream()
-                .sorted((e1, e2) -> {
-                    // Primary sorting by value in descending order
-                    int valueComparison = Integer.compare(e2.getValue(), e1.getValue());
-                
-                    // If values are the same, apply secondary sorting by key in alphabetical order
-                    return valueComparison != 0 ? valueComparison : e1.getKey().compareTo(e2.getKey());
-                })
-                .limit(topN) // Limit to the top N entries
-                .map(entry -> entry.getKey() + " (" + entry.getValue() + " occurrences)") // Format each entry
-                .collect(Collectors.joining(", ")); // Join formatted entries into a single string
+     * Sums a per-class count by enclosing top-level class, by package and by module.
+     */
+    private static final class Rollup {
+
+        // Group names of a class at each level, computed once per class
+        private static final ClassValue<String[]> groups = new ClassValue<>() {
+            @Override
+            protected String[] computeValue(Class<?> clazz) {
+                // Fold nested, local and anonymous classes into their top-level class
+                Class<?> topLevel = clazz;
+                while (topLevel.getEnclosingClass() != null) topLevel = topLevel.getEnclosingClass();
+
+                String packageName = clazz.getPackageName(), moduleName = clazz.getModule().getName();
+                return new String[] {
+                    topLevel.getName(),
+                    packageName.isEmpty() ? "(default package)" : packageName,
+                    moduleName == null ? "(unnamed module)" : moduleName
+                };
+            }
+        };
+
+        private final Map<String, Integer> byTopLevel = new HashMap<>(),
+                                           byPackage = new HashMap<>(),
+                                           byModule = new HashMap<>();
+
+        /**
+         * Adds a count of a class to the groups it belongs to.
+         * @param clazz The class the count belongs to
+         * @param value The count to add
+         */
+        void add(Class<?> clazz, int value) {
+            String[] names = groups.get(clazz);
+            byTopLevel.merge(names[0], value, Integer::sum);
+            byPackage.merge(names[1], value, Integer::sum);
+            byModule.merge(names[2], value, Integer::sum);
+        }
+
+        /**
+         * Registers the counts of each level as a metric named after the label and the level, e.g. "1a/package".
+         * @param metrics Map from metric name to its counts
+         * @param label Label of the rolled up metric
+         */
+        void addMetrics(Map<String, Map<String, Integer>> metrics, String label) {
+            metrics.put(label + "/top-level", byTopLevel);
+            metrics.put(label + "/package", byPackage);
+            metrics.put(label + "/module", byModule);
+        }
+
+        /**
+         * Removes all accumulated counts.
+         */
+        void reset() {
+            byTopLevel.clear();
+            byPackage.clear();
+            byModule.clear();
+        }
     }
 }
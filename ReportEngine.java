@@ -0,0 +1,310 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Computes many reports over the per-class metrics of a single scan.
+ * <p>
+ * A report specification names a metric and any combination of top-N lists, histogram buckets and percentiles,
+ * e.g. {@code 2b:top=10,100,1000:hist=0,10,50,100:pct=50,90,99}. Several specifications are separated by
+ * {@code ;}. Each metric is sorted once, however many specifications refer to it, and every top-N list,
+ * histogram and percentile of that metric is read from the same sorted entries.
+ */
+public class ReportEngine {
+
+    /**
+     * A single report request for one metric.
+     * @param metric Name of the metric, e.g. {@code 1a} or {@code 1a/package}
+     * @param topN Sizes of the top-N lists to report
+     * @param buckets Ascending bounds between histogram buckets, empty for no histogram
+     * @param percentiles Percentiles to report, each between 0 and 100
+     */
+    public record ReportSpec(String metric, List<Integer> topN, List<Integer> buckets, List<Double> percentiles) {
+
+        /**
+         * Creates a report specification holding unmodifiable copies of the given values.
+         */
+        public ReportSpec {
+            topN = List.copyOf(topN);
+            buckets = List.copyOf(buckets);
+            percentiles = List.copyOf(percentiles);
+        }
+
+        /**
+         * Parses a list of report specifications separated by ';'.
+         * @param specs The specification text
+         * @return List of parsed specifications
+         * @throws IllegalArgumentException if a specification is malformed
+         */
+        public static List<ReportSpec> parseAll(String specs) {
+            List<ReportSpec> parsed = new ArrayList<>();
+            for (String spec : specs.split(";")) {
+                if (!spec.isBlank()) parsed.add(parse(spec.trim()));
+            }
+            if (parsed.isEmpty()) throw new IllegalArgumentException("No report specification given");
+            return parsed;
+        }
+
+        /**
+         * Parses one report specification of the form {@code metric[:top=...][:hist=...][:pct=...]}.
+         * @param spec The specification text
+         * @return The parsed specification
+         * @throws IllegalArgumentException if the specification is malformed
+         */
+        public static ReportSpec parse(String spec) {
+            String[] parts = spec.split(":");
+            List<Integer> topN = List.of(), buckets = List.of();
+            List<Double> percentiles = List.of();
+            Set<String> options = new HashSet<>();
+
+            for (int i = 1; i < parts.length; i++) {
+                int separator = parts[i].indexOf('=');
+                if (separator < 0) throw new IllegalArgumentException("Missing '=' in '" + parts[i] + "' of " + spec);
+                String option = parts[i].substring(0, separator), values = parts[i].substring(separator + 1);
+                if (!options.add(option)) throw new IllegalArgumentException("Duplicate option '" + option + "' in " + spec);
+                try {
+                    switch (option) {
+                        case "top" -> topN = parseValues(values, Integer::valueOf, spec);
+                        case "hist" -> buckets = parseValues(values, Integer::valueOf, spec);
+                        case "pct" -> percentiles = parseValues(values, Double::valueOf, spec);
+                        default -> throw new IllegalArgumentException("Unknown option '" + option + "' in " + spec);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid number in '" + parts[i] + "' of " + spec);
+                }
+            }
+
+            // Validate the values, so a bad specification fails before the scan rather than after it
+            if (parts[0].isEmpty()) throw new IllegalArgumentException("Missing metric in " + spec);
+            if (topN.size() + buckets.size() + percentiles.size() == 0) {
+                throw new IllegalArgumentException("No top, hist or pct option in " + spec);
+            }
+            for (int n : topN) {
+                if (n < 0) throw new IllegalArgumentException("Top-N must be non-negative in " + spec);
+            }
+            for (int i = 1; i < buckets.size(); i++) {
+                if (buckets.get(i) <= buckets.get(i - 1)) throw new IllegalArgumentException("Buckets are not ascending in " + spec);
+            }
+            for (double percentile : percentiles) {
+                // Written so that NaN, for which every comparison is false, is rejected as well
+                if (!(percentile >= 0 && percentile <= 100)) throw new IllegalArgumentException("Percentile out of range in " + spec);
+            }
+            return new ReportSpec(parts[0], topN, buckets, percentiles);
+        }
+
+        /**
+         * Parses the comma-separated values of one option, rejecting repeated values.
+         * @param values The values text
+         * @param parser Parser for a single value
+         * @param spec The whole specification, used in messages
+         * @return List of parsed values, in the given order
+         * @throws NumberFormatException if a value is not a number
+         * @throws IllegalArgumentException if a value is repeated
+         */
+        private static <T> List<T> parseValues(String values, Function<String, T> parser, String spec) {
+            List<T> parsed = new ArrayList<>();
+            for (String value : values.split(",")) {
+                T number = parser.apply(value.trim());
+                if (parsed.contains(number)) throw new IllegalArgumentException("Repeated value '" + value + "' in " + spec);
+                parsed.add(number);
+            }
+            return parsed;
+        }
+    }
+
+    // Per-class results of the scan, by metric name
+    private final Map<String, Map<String, Integer>> metrics;
+
+    // Entries of each metric sorted by descending value and then by name, computed once per metric
+    private final Map<String, List<Map.Entry<String, Integer>>> sortedEntries = new HashMap<>();
+
+    /**
+     * Creates a report engine over the given metrics.
+     * @param metrics Maps from class or group name to count, by metric name
+     */
+    public ReportEngine(Map<String, Map<String, Integer>> metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Checks that every specification refers to a known metric.
+     * @param specs The report specifications
+     * @throws IllegalArgumentException if a metric is unknown
+     */
+    public void validate(List<ReportSpec> specs) {
+        for (ReportSpec spec : specs) {
+            if (!metrics.containsKey(spec.metric())) {
+                throw new IllegalArgumentException("Unknown metric '" + spec.metric() + "', expected one of " + metrics.keySet());
+            }
+        }
+    }
+
+    /**
+     * Formats the reports as text lines, in the style of the default output.
+     * @param specs The report specifications
+     * @return List of formatted output lines
+     */
+    public List<String> toText(List<ReportSpec> specs) {
+        List<String> outputLines = new ArrayList<>();
+        for (ReportSpec spec : specs) {
+            List<Map.Entry<String, Integer>> entries = sorted(spec.metric());
+
+            for (int n : spec.topN()) outputLines.add(spec.metric() + " top " + n + ": " + formatTop(spec.metric(), n));
+            if (!spec.buckets().isEmpty()) {
+                int[] counts = histogram(entries, spec.buckets());
+                List<String> buckets = new ArrayList<>();
+                for (int i = 0; i < counts.length; i++) buckets.add(bucketLabel(spec.buckets(), i) + " " + counts[i]);
+                outputLines.add(spec.metric() + " histogram: " + String.join(", ", buckets));
+            }
+            if (!spec.percentiles().isEmpty()) {
+                outputLines.add(spec.metric() + " percentiles: " + spec.percentiles().stream()
+                        .map(p -> "p" + formatPercentile(p) + " " + percentile(entries, p))
+                        .collect(Collectors.joining(", ")));
+            }
+        }
+        return outputLines;
+    }
+
+    /**
+     * Formats the top N entries of a metric, e.g. {@code Foo (3 occurrences), Bar (2 occurrences)}.
+     * @param metric Name of the metric
+     * @param n The maximum number of top entries to include
+     * @return Formatted string of the top N entries
+     */
+    public String formatTop(String metric, int n) {
+        return sorted(metric).stream()
+                .limit(n) // Limit to the top N entries
+                .map(entry -> entry.getKey() + " (" + entry.getValue() + " occurrences)") // Format each entry
+                .collect(Collectors.joining(", ")); // Join formatted entries into a single string
+    }
+
+    /**
+     * Formats the reports as a JSON array with one object per specification.
+     * @param specs The report specifications
+     * @return List of output lines forming the JSON document
+     */
+    public List<String> toJson(List<ReportSpec> specs) {
+        List<String> reports = new ArrayList<>();
+        for (ReportSpec spec : specs) {
+            List<Map.Entry<String, Integer>> entries = sorted(spec.metric());
+            List<String> fields = new ArrayList<>();
+            fields.add("\"metric\": " + quote(spec.metric()));
+            fields.add("\"count\": " + entries.size());
+
+            if (!spec.topN().isEmpty()) {
+                fields.add("\"top\": {" + spec.topN().stream()
+                        .map(n -> quote(String.valueOf(n)) + ": [" + entries.stream().limit(n)
+                                .map(entry -> "{\"name\": " + quote(entry.getKey()) + ", \"value\": " + entry.getValue() + "}")
+                                .collect(Collectors.joining(", ")) + "]")
+                        .collect(Collectors.joining(", ")) + "}");
+            }
+            if (!spec.buckets().isEmpty()) {
+                int[] counts = histogram(entries, spec.buckets());
+                List<String> buckets = new ArrayList<>();
+                for (int i = 0; i < counts.length; i++) {
+                    // Open-ended buckets have a null bound
+                    String from = i == 0 ? "null" : String.valueOf(spec.buckets().get(i - 1));
+                    String to = i == spec.buckets().size() ? "null" : String.valueOf(spec.buckets().get(i));
+                    buckets.add("{\"from\": " + from + ", \"to\": " + to + ", \"count\": " + counts[i] + "}");
+                }
+                fields.add("\"histogram\": [" + String.join(", ", buckets) + "]");
+            }
+            if (!spec.percentiles().isEmpty()) {
+                fields.add("\"percentiles\": {" + spec.percentiles().stream()
+                        .map(p -> quote(formatPercentile(p)) + ": " + percentile(entries, p))
+                        .collect(Collectors.joining(", ")) + "}");
+            }
+            reports.add("  {" + String.join(", ", fields) + "}");
+        }
+
+        List<String> outputLines = new ArrayList<>();
+        outputLines.add("[");
+        for (int i = 0; i < reports.size(); i++) outputLines.add(reports.get(i) + (i + 1 < reports.size() ? "," : ""));
+        outputLines.add("]");
+        return outputLines;
+    }
+
+    /**
+     * Returns the entries of a metric sorted by descending value and then by name, sorting each metric only once.
+     * @param metric Name of the metric
+     * @return Sorted list of entries
+     */
+    private List<Map.Entry<String, Integer>> sorted(String metric) {
+        return sortedEntries.computeIfAbsent(metric, name -> metrics.get(name).entrySet().stream()
+                .sorted((e1, e2) -> {
+                    // Primary sorting by value in descending order
+                    int valueComparison = Integer.compare(e2.getValue(), e1.getValue());
+
+                    // If values are the same, apply secondary sorting by key in alphabetical order
+                    return valueComparison != 0 ? valueComparison : e1.getKey().compareTo(e2.getKey());
+                })
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Counts the entries falling into each histogram bucket.
+     * Bucket 0 holds values below the first bound, bucket i holds values from bound i-1 up to bound i,
+     * and the last bucket holds values from the last bound upwards.
+     * @param entries Sorted entries of a metric
+     * @param bounds Ascending bucket bounds
+     * @return Count of entries per bucket
+     */
+    private static int[] histogram(List<Map.Entry<String, Integer>> entries, List<Integer> bounds) {
+        int[] counts = new int[bounds.size() + 1];
+        for (Map.Entry<String, Integer> entry : entries) {
+            int position = Collections.binarySearch(bounds, entry.getValue());
+            counts[position >= 0 ? position + 1 : -position - 1]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Formats the range of a histogram bucket, e.g. {@code [10, 50)}.
+     * @param bounds Ascending bucket bounds
+     * @param index Index of the bucket
+     * @return The formatted range
+     */
+    private static String bucketLabel(List<Integer> bounds, int index) {
+        if (index == 0) return "(-inf, " + bounds.get(0) + ")";
+        if (index == bounds.size()) return "[" + bounds.get(index - 1) + ", +inf)";
+        return "[" + bounds.get(index - 1) + ", " + bounds.get(index) + ")";
+    }
+
+    /**
+     * Returns a percentile of a metric using the nearest-rank method.
+     * @param entries Entries of a metric sorted by descending value
+     * @param percentile The percentile, between 0 and 100
+     * @return The value at the percentile, or 0 if the metric is empty
+     */
+    private static int percentile(List<Map.Entry<String, Integer>> entries, double percentile) {
+        if (entries.isEmpty()) return 0;
+        int rank = Math.max(1, (int) Math.ceil(percentile / 100.0 * entries.size()));
+
+        // Entries are in descending order, so the k-th smallest value sits k places from the end
+        return entries.get(entries.size() - rank).getValue();
+    }
+
+    /**
+     * Formats a percentile without a trailing ".0" for whole numbers.
+     * @param percentile The percentile
+     * @return The formatted percentile
+     */
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    /**
+     * Quotes a string as a JSON string literal.
+     * @param value The string to quote
+     * @return The quoted string
+     */
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,170 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the analysis engines over synthetic hierarchies of growing size and reports time and memory curves.
+ * <p>
+ * Every knob of {@link SyntheticHierarchy} is given as {@code name=value}; exactly one knob may instead be given
+ * as a range {@code name=from..to}, which is swept by doubling ({@code diamonds} is swept one level at a time).
+ * Each engine is a class with {@code static void exploreHierarchy(Class<?>)} and {@code static void reset()} methods,
+ * such as {@code Main} or the variants in the {@code extra} directory; engines missing from the classpath are skipped.
+ * <pre>
+ * java ScalingHarness depth=1..4096 fanOut=1 diamonds=2 members=4 types=1000000
+ * </pre>
+ */
+public class ScalingHarness {
+
+    // Engines compared at every point of the sweep
+    private static final String[] ENGINES = { "Main", "MainWhile", "MainWithEnclosing" };
+
+    public static void main(String[] args) {
+
+        // Defaults for knobs that are not given on the command line
+        Map<String, String> knobs = new LinkedHashMap<>();
+        knobs.put("depth", "16");
+        knobs.put("fanOut", "2");
+        knobs.put("diamonds", "0");
+        knobs.put("members", "4");
+        knobs.put("types", "100000");
+
+        String sweptKnob = null;
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0 || !knobs.containsKey(arg.substring(0, separator))) {
+                printUsage("Invalid argument: " + arg);
+                return;
+            }
+            String name = arg.substring(0, separator), value = arg.substring(separator + 1);
+            if (value.contains("..")) {
+                if (sweptKnob != null) {
+                    System.out.println("Only one knob may be swept, found " + sweptKnob + " and " + name);
+                    return;
+                }
+                sweptKnob = name;
+            }
+            knobs.put(name, value);
+        }
+        if (sweptKnob == null) sweptKnob = "types";
+
+        // Build the shape of every point of the sweep, rejecting bad knob values before anything runs
+        List<Integer> points = new ArrayList<>();
+        List<Map<String, Integer>> shapes = new ArrayList<>();
+        try {
+            String range = knobs.get(sweptKnob);
+            int from = Integer.parseInt(range.contains("..") ? range.substring(0, range.indexOf("..")) : range);
+            int to = Integer.parseInt(range.contains("..") ? range.substring(range.indexOf("..") + 2) : range);
+            for (long value = from; value <= to; value = sweptKnob.equals("diamonds") ? value + 1 : Math.max(value * 2, value + 1)) {
+                points.add((int) value);
+            }
+
+            for (int point : points) {
+                Map<String, Integer> shape = new LinkedHashMap<>();
+                for (Map.Entry<String, String> knob : knobs.entrySet()) {
+                    shape.put(knob.getKey(), knob.getKey().equals(sweptKnob) ? point : Integer.parseInt(knob.getValue()));
+                }
+                hierarchy(shape);
+                shapes.add(shape);
+            }
+        } catch (IllegalArgumentException e) {
+            printUsage("Invalid knob value: " + e.getMessage());
+            return;
+        }
+
+        List<Class<?>> engines = new ArrayList<>();
+        for (String engine : ENGINES) {
+            try {
+                engines.add(Class.forName(engine));
+            } catch (ClassNotFoundException e) {
+                System.out.println("Skipped engine not on classpath: " + engine);
+            }
+        }
+
+        System.out.println("engine," + sweptKnob + ",types,millis,allocatedMB,retainedMB,status");
+        for (int i = 0; i < points.size(); i++) {
+            for (Class<?> engine : engines) {
+                // A fresh loader per engine keeps reflection caches warmed by one engine from helping the next
+                SyntheticHierarchy hierarchy = hierarchy(shapes.get(i));
+                System.out.println(engine.getName() + "," + points.get(i) + "," + hierarchy.size() + ","
+                        + measure(engine, hierarchy.loadAll()));
+            }
+        }
+    }
+
+    /**
+     * Prints the reason for rejecting the arguments, followed by the usage instructions.
+     * @param reason Description of the invalid argument
+     */
+    private static void printUsage(String reason) {
+        System.out.println(reason);
+        System.out.println("Usage: java ScalingHarness [depth=N] [fanOut=N] [diamonds=N] [members=N] [types=N]");
+        System.out.println("Exactly one knob may be a range, e.g. depth=1..4096");
+    }
+
+    /**
+     * Creates a synthetic hierarchy with the given shape.
+     * @param shape Value of every knob, by knob name
+     * @return The synthetic hierarchy
+     * @throws IllegalArgumentException if the shape is invalid
+     */
+    private static SyntheticHierarchy hierarchy(Map<String, Integer> shape) {
+        return new SyntheticHierarchy(shape.get("depth"), shape.get("fanOut"), shape.get("diamonds"),
+                shape.get("members"), shape.get("types"));
+    }
+
+    /**
+     * Runs one engine over the given classes and measures elapsed time, allocated bytes and retained heap.
+     * @param engine Class providing static exploreHierarchy and reset methods
+     * @param classes Classes to analyze
+     * @return Comma-separated measurements followed by the outcome of the run
+     */
+    private static String measure(Class<?> engine, List<Class<?>> classes) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        String status = "ok";
+
+        try {
+            Method exploreHierarchy = engine.getDeclaredMethod("exploreHierarchy", Class.class);
+            exploreHierarchy.setAccessible(true);
+            Method reset = engine.getDeclaredMethod("reset");
+            reset.setAccessible(true);
+            reset.invoke(null);
+
+            System.gc();
+            long heapBefore = memory.getHeapMemoryUsage().getUsed();
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+
+            try {
+                for (Class<?> clazz : classes) exploreHierarchy.invoke(null, clazz);
+            } catch (InvocationTargetException e) {
+                // Record the failure, e.g. a StackOverflowError on deep hierarchies, as the cliff it is
+                status = e.getCause().getClass().getSimpleName();
+            }
+
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            System.gc();
+            long retained = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+            reset.invoke(null);
+
+            return millis + "," + toMegabytes(allocated) + "," + toMegabytes(retained) + "," + status;
+        } catch (ReflectiveOperationException e) {
+            return ",,," + e.getClass().getSimpleName();
+        }
+    }
+
+    /**
+     * Formats a byte count as megabytes with one decimal.
+     * @param bytes Number of bytes
+     * @return Formatted megabytes
+     */
+    private static String toMegabytes(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,264 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class loader that generates parameterized synthetic class hierarchies as in-memory class bytes.
+ * <p>
+ * The generated types live in the {@code synthetic} package and are produced lazily from their names,
+ * so even hierarchies with millions of types never hold more than one class file in memory at a time.
+ * <ul>
+ *   <li>Classes {@code synthetic.C0 .. C(n-1)} form a tree: {@code C0} extends {@code Object} and every
+ *       class has up to {@code fanOut} direct subclasses, down to {@code depth} levels.</li>
+ *   <li>Interfaces {@code synthetic.I0a, I0b .. I(k-1)a, I(k-1)b} form a chain of {@code k} diamonds:
+ *       both interfaces of a level extend both interfaces of the level below.
+ *       Every class implements the top pair, so all classes share the same interface fan-in.</li>
+ *   <li>Each type declares {@code members} fields named after the type, which accumulate along the chain,
+ *       and {@code members} methods {@code m0 .. m(members-1)}, which are overridden at every level.</li>
+ * </ul>
+ */
+public class SyntheticHierarchy extends ClassLoader {
+
+    // Package of the generated types, in binary and internal form
+    private static final String PACKAGE = "synthetic.";
+    private static final String INTERNAL_PACKAGE = "synthetic/";
+
+    // Access flags used for the generated class file entries
+    private static final int ACC_PUBLIC = 0x0001, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020,
+                             ACC_INTERFACE = 0x0200, ACC_ABSTRACT = 0x0400;
+
+    // Largest number of members per type: each member adds one name to the constant pool, whose 16-bit count
+    // must also hold the 12 entries for the type, its supertypes, the descriptors and the Code attribute name
+    private static final int MAX_MEMBERS = (0xFFFF - 12) / 2;
+
+    // Knobs describing the shape of the hierarchy
+    private final int depth, fanOut, diamonds, members, classCount;
+
+    /**
+     * Creates a loader for a synthetic hierarchy with the given shape.
+     * @param depth Maximum number of levels in the class tree
+     * @param fanOut Number of direct subclasses of each class
+     * @param diamonds Number of stacked interface diamonds implemented by every class
+     * @param members Number of fields and of methods declared by each type, limited by the class file format
+     * @param totalTypes Upper bound on the number of generated types, interfaces included
+     */
+    public SyntheticHierarchy(int depth, int fanOut, int diamonds, int members, int totalTypes) {
+        if (depth < 1 || fanOut < 1 || diamonds < 0 || members < 0 || totalTypes < 1 + 2 * diamonds) {
+            throw new IllegalArgumentException("Invalid hierarchy shape: depth=" + depth + ", fanOut=" + fanOut
+                    + ", diamonds=" + diamonds + ", members=" + members + ", totalTypes=" + totalTypes);
+        }
+        if (members > MAX_MEMBERS) {
+            throw new IllegalArgumentException("Too many members per type: " + members + ", the class file format allows at most " + MAX_MEMBERS);
+        }
+        this.depth = depth;
+        this.fanOut = fanOut;
+        this.diamonds = diamonds;
+        this.members = members;
+
+        // Count the classes of a full tree level by level, stopping once the type budget is used up
+        long classBudget = totalTypes - 2L * diamonds, treeSize = 0, levelSize = 1;
+        for (int level = 0; level < depth && treeSize < classBudget; level++) {
+            treeSize += levelSize;
+            levelSize = Math.min(levelSize * fanOut, classBudget);
+        }
+        this.classCount = (int) Math.min(treeSize, classBudget);
+    }
+
+    /**
+     * Returns the number of types in the hierarchy, interfaces included.
+     * @return Total number of generated types
+     */
+    public int size() {
+        return classCount + 2 * diamonds;
+    }
+
+    /**
+     * Returns the binary names of all generated types, interfaces first and then classes in breadth-first order.
+     * @return List of type names
+     */
+    public List<String> typeNames() {
+        List<String> names = new ArrayList<>(size());
+        for (int level = 0; level < diamonds; level++) {
+            names.add(PACKAGE + "I" + level + "a");
+            names.add(PACKAGE + "I" + level + "b");
+        }
+        for (int index = 0; index < classCount; index++) names.add(PACKAGE + "C" + index);
+        return names;
+    }
+
+    /**
+     * Loads every generated type through this loader.
+     * @return List of loaded types, in the order of {@link #typeNames()}
+     */
+    public List<Class<?>> loadAll() {
+        List<Class<?>> classes = new ArrayList<>(size());
+        for (String name : typeNames()) {
+            try {
+                classes.add(loadClass(name));
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Generated type could not be loaded: " + name, e);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Defines a generated type on first request.
+     * @param name Binary name of the type
+     * @return The defined class
+     * @throws ClassNotFoundException if the name does not belong to this hierarchy
+     */
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = classBytes(name);
+        if (bytes == null) throw new ClassNotFoundException(name);
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Generates the class file for a type of this hierarchy.
+     * @param name Binary name of the type
+     * @return The class file bytes, or null if the name does not belong to this hierarchy
+     */
+    public byte[] classBytes(String name) {
+        // Only canonical names such as C5 or I2a belong to the hierarchy, so C05 or C+5 cannot define a duplicate type
+        if (!name.startsWith(PACKAGE)) return null;
+        String simpleName = name.substring(PACKAGE.length());
+
+        try {
+            if (simpleName.startsWith("C")) {
+                int index = Integer.parseInt(simpleName.substring(1));
+                if (index < 0 || index >= classCount || !simpleName.equals("C" + index)) return null;
+
+                // The root class extends Object, every other class extends its parent in the tree
+                String superName = index == 0 ? "java/lang/Object" : INTERNAL_PACKAGE + "C" + ((index - 1) / fanOut);
+                String[] interfaces = diamonds == 0 ? new String[0]
+                        : new String[] { INTERNAL_PACKAGE + "I" + (diamonds - 1) + "a", INTERNAL_PACKAGE + "I" + (diamonds - 1) + "b" };
+                return writeClass(simpleName, false, superName, interfaces);
+            }
+            if (simpleName.startsWith("I") && (simpleName.endsWith("a") || simpleName.endsWith("b"))) {
+                int level = Integer.parseInt(simpleName.substring(1, simpleName.length() - 1));
+                char side = simpleName.charAt(simpleName.length() - 1);
+                if (level < 0 || level >= diamonds || !simpleName.equals("I" + level + side)) return null;
+
+                // Both interfaces of a level extend both interfaces of the level below, closing a diamond
+                String[] interfaces = level == 0 ? new String[0]
+                        : new String[] { INTERNAL_PACKAGE + "I" + (level - 1) + "a", INTERNAL_PACKAGE + "I" + (level - 1) + "b" };
+                return writeClass(simpleName, true, "java/lang/Object", interfaces);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return null;
+    }
+
+    /**
+     * Writes a minimal class file with the configured number of fields and methods.
+     * @param simpleName Simple name of the type within the synthetic package
+     * @param isInterface Whether the type is an interface
+     * @param superName Internal name of the superclass
+     * @param interfaces Internal names of the direct superinterfaces
+     * @return The class file bytes
+     */
+    private byte[] writeClass(String simpleName, boolean isInterface, String superName, String[] interfaces) {
+        ConstantPool pool = new ConstantPool();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            out.writeShort(isInterface ? ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT : ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(pool.classRef(INTERNAL_PACKAGE + simpleName));
+            out.writeShort(pool.classRef(superName));
+            out.writeShort(interfaces.length);
+            for (String superInterface : interfaces) out.writeShort(pool.classRef(superInterface));
+
+            // Fields are named after the declaring type, so they accumulate along the hierarchy
+            out.writeShort(members);
+            for (int i = 0; i < members; i++) {
+                out.writeShort(isInterface ? ACC_PUBLIC | ACC_STATIC | ACC_FINAL : ACC_PUBLIC);
+                out.writeShort(pool.utf8(simpleName + "_f" + i));
+                out.writeShort(pool.utf8("I"));
+                out.writeShort(0);
+            }
+
+            // Methods share their names across types, so they are overridden at every level
+            out.writeShort(members);
+            for (int i = 0; i < members; i++) {
+                out.writeShort(isInterface ? ACC_PUBLIC | ACC_ABSTRACT : ACC_PUBLIC);
+                out.writeShort(pool.utf8("m" + i));
+                out.writeShort(pool.utf8("()V"));
+                if (isInterface) {
+                    out.writeShort(0);
+                } else {
+                    // Code attribute holding a single 'return' instruction
+                    out.writeShort(1);
+                    out.writeShort(pool.utf8("Code"));
+                    out.writeInt(13);
+                    out.writeShort(0);     // max_stack
+                    out.writeShort(1);     // max_locals
+                    out.writeInt(1);       // code_length
+                    out.writeByte(0xB1);   // return
+                    out.writeShort(0);     // exception_table_length
+                    out.writeShort(0);     // attributes_count
+                }
+            }
+            out.writeShort(0);  // class attributes_count
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // The constant pool is only complete once the body is written, so the header is assembled last
+        ByteArrayOutputStream classFile = new ByteArrayOutputStream(body.size() + 64 * pool.count);
+        try (DataOutputStream out = new DataOutputStream(classFile)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);   // minor_version
+            out.writeShort(52);  // major_version (Java 8, no stack map frames required)
+            pool.writeTo(out);
+            body.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return classFile.toByteArray();
+    }
+
+    /**
+     * Constant pool holding the deduplicated UTF-8 and class entries of a single class file.
+     */
+    private static final class ConstantPool {
+
+        private static final int CONSTANT_UTF8 = 1, CONSTANT_CLASS = 7;
+
+        private final Map<String, Integer> utf8Entries = new HashMap<>(), classEntries = new HashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int count = 1;  // Index 0 is reserved by the class file format
+
+        int utf8(String value) throws IOException {
+            Integer index = utf8Entries.get(value);
+            if (index != null) return index;
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(value);
+            utf8Entries.put(value, count);
+            return count++;
+        }
+
+        int classRef(String internalName) throws IOException {
+            Integer index = classEntries.get(internalName);
+            if (index != null) return index;
+            int nameIndex = utf8(internalName);
+            out.writeByte(CONSTANT_CLASS);
+            out.writeShort(nameIndex);
+            classEntries.put(internalName, count);
+            return count++;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+    }
+}
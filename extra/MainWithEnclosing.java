@@ -68,6 +68,18 @@ public class MainWithEnclosing {
         }
     }
 
+    /**
+     * Clears the results of previous runs, so repeated analyses in the same JVM do not accumulate counts.
+     */
+    static void reset() {
+        fieldsDeclared.clear();
+        fieldsAll.clear();
+        methodsDeclared.clear();
+        methodsAll.clear();
+        subtypesTotal.clear();
+        supertypesTotal.clear();
+    }
+
     /**
      * Reads class names from the specified input file, loads each class, and adds it to the classes list.
      * @param classes List to hold the loaded classes
@@ -0,0 +1,358 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Regression tests for {@link Main}, covering both its output and its performance budgets.
+ * <p>
+ * The correctness check runs the commons-lang3 input and compares the result with the committed
+ * {@code resources/output.txt}. The budget checks run {@code Main.exploreHierarchy} over fixed corpora,
+ * followed by the ranking and formatting of the default output, and fail when the bytes allocated per class
+ * (from the thread allocation counters) or the classes analyzed per second fall outside the budgets below.
+ * The allocation budgets sit below twice the measured steady state, so a doubling of allocation per class
+ * fails the run. Run from the project root:
+ * <pre>
+ * javac -d bin -cp "libraries/*" *.java test/*.java
+ * java -cp "bin;libraries/*" MainTest
+ * </pre>
+ */
+public class MainTest {
+
+    // Budgets for the commons-lang3 corpus
+    private static final long LIBRARY_BYTES_PER_CLASS = 8 * 1024;
+    private static final long LIBRARY_CLASSES_PER_SECOND = 10_000;
+
+    // Budgets for the synthetic corpus, which does not depend on the JDK or the library version
+    private static final long SYNTHETIC_BYTES_PER_CLASS = 64 * 1024;
+    private static final long SYNTHETIC_CLASSES_PER_SECOND = 5_000;
+
+    // Number of warm-up passes before measuring, so reflection caches and the JIT reach a steady state
+    private static final int WARMUP_RUNS = 5;
+
+    // Number of measured passes; the fastest pass and the median allocation are compared with the budgets,
+    // so a single GC pause or a noisy neighbour does not fail the run
+    private static final int MEASURED_RUNS = 9;
+
+    // Number of top entries ranked after each pass, as in the committed output
+    private static final int TOP_N = 10;
+
+    private static final String INPUT_FILE = "resources" + File.separator + "input.txt";
+    private static final String EXPECTED_OUTPUT_FILE = "resources" + File.separator + "output.txt";
+
+    private static final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        testOutputMatchesCommittedResult();
+        testReportsMatchCommittedResult();
+        testNumberAfterReportsSelectsDefaultOutput();
+        testRollups();
+        testReportStatistics();
+        testReportJson();
+        testReportSpecErrors();
+        testOutputFileArgumentProtectsInputList();
+        testLibraryBudgets();
+        testSyntheticBudgets();
+
+        if (failures.isEmpty()) {
+            System.out.println("All tests passed");
+        } else {
+            failures.forEach(failure -> System.out.println("FAILED: " + failure));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs Main on the commons-lang3 input and compares the written file with the committed output.
+     * @throws IOException if the output files cannot be read
+     */
+    private static void testOutputMatchesCommittedResult() throws IOException {
+        File actualOutput = File.createTempFile("output", ".txt");
+        actualOutput.deleteOnExit();
+
+        Main.reset();
+        runQuietly(() -> Main.main(new String[] { INPUT_FILE, actualOutput.getPath(), String.valueOf(TOP_N) }));
+
+        List<String> expected = Files.readAllLines(new File(EXPECTED_OUTPUT_FILE).toPath());
+        List<String> actual = Files.readAllLines(actualOutput.toPath());
+        check(expected.equals(actual), "output for " + INPUT_FILE + " differs from " + EXPECTED_OUTPUT_FILE);
+        System.out.println("Output matches " + EXPECTED_OUTPUT_FILE);
+    }
+
+    /**
+     * Runs Main with top-10 report specifications and compares each report with the matching committed line.
+     * @throws IOException if the output files cannot be read
+     */
+    private static void testReportsMatchCommittedResult() throws IOException {
+        File actualOutput = File.createTempFile("report", ".txt");
+        actualOutput.deleteOnExit();
+        String[] metrics = { "1a", "1b", "2a", "2b", "3", "4" };
+
+        Main.reset();
+        runQuietly(() -> Main.main(new String[] { INPUT_FILE, actualOutput.getPath(), String.join(":top=10;", metrics) + ":top=10" }));
+
+        List<String> expected = Files.readAllLines(new File(EXPECTED_OUTPUT_FILE).toPath());
+        List<String> actual = Files.readAllLines(actualOutput.toPath());
+        check(actual.size() == metrics.length, "expected " + metrics.length + " report lines, got " + actual.size());
+        for (int i = 0; i < Math.min(metrics.length, actual.size()); i++) {
+            check(actual.get(i).replaceFirst(" top 10:", ":").equals(expected.get(i)),
+                    "report for " + metrics[i] + " differs from " + EXPECTED_OUTPUT_FILE);
+        }
+        System.out.println("Reports match " + EXPECTED_OUTPUT_FILE);
+    }
+
+    /**
+     * Runs Main with report specifications and then with a plain N, which must bring back the default output.
+     * @throws IOException if the output file cannot be read
+     */
+    private static void testNumberAfterReportsSelectsDefaultOutput() throws IOException {
+        File actualOutput = File.createTempFile("output", ".txt");
+        actualOutput.deleteOnExit();
+
+        Main.reset();
+        runQuietly(() -> Main.main(new String[] { INPUT_FILE, actualOutput.getPath(), "2b:top=1" }));
+        runQuietly(() -> Main.main(new String[] { INPUT_FILE, actualOutput.getPath(), "3" }));
+
+        List<String> actual = Files.readAllLines(actualOutput.toPath());
+        check(actual.size() == 6 && actual.get(0).startsWith("1a: "), "a plain N after report specifications wrote " + actual);
+        System.out.println("Plain N after reports selects the default output");
+    }
+
+    /**
+     * Checks the rollups of the commons-lang3 classes against sums of the per-class results, with one class
+     * analyzed twice: nested and anonymous classes fold into their top-level class and every class counts once.
+     * @throws IOException if the input file cannot be read
+     * @throws ClassNotFoundException if a listed class cannot be loaded
+     */
+    private static void testRollups() throws IOException, ClassNotFoundException {
+        String style = "org.apache.commons.lang3.builder.ToStringStyle", builder = "org.apache.commons.lang3.builder";
+
+        Main.reset();
+        for (Class<?> clazz : libraryClasses()) Main.exploreHierarchy(clazz);
+        Main.exploreHierarchy(Class.forName(style));
+
+        // Expected sums, grouping the per-class results by name
+        Map<String, Integer> fieldsDeclared = Main.metrics().get("1a");
+        int classCount = fieldsDeclared.size(), styleClasses = 0, styleFields = 0, builderFields = 0;
+        for (Map.Entry<String, Integer> entry : fieldsDeclared.entrySet()) {
+            String name = entry.getKey();
+            if (name.equals(style) || name.startsWith(style + "$")) {
+                styleClasses++;
+                styleFields += entry.getValue();
+            }
+            if (name.substring(0, name.lastIndexOf('.')).equals(builder)) builderFields += entry.getValue();
+        }
+
+        List<String> report = new ReportEngine(Main.metrics()).toText(ReportEngine.ReportSpec.parseAll(
+                "classes/top-level:top=1000;1a/top-level:top=1000;1a/package:top=1000;classes/module:top=1000"));
+        Main.reset();
+
+        check(styleClasses > 1, style + " has no nested classes in " + INPUT_FILE);
+        check(entries(report.get(0)).contains(style + " (" + styleClasses + " occurrences)"),
+                "classes/top-level does not count " + styleClasses + " classes for " + style);
+        check(entries(report.get(0)).stream().noneMatch(entry -> entry.contains("$")),
+                "classes/top-level contains nested classes");
+        check(entries(report.get(1)).contains(style + " (" + styleFields + " occurrences)"),
+                "1a/top-level does not sum " + styleFields + " fields for " + style);
+        check(entries(report.get(2)).contains(builder + " (" + builderFields + " occurrences)"),
+                "1a/package does not sum " + builderFields + " fields for " + builder);
+        check(entries(report.get(3)).equals(List.of("(unnamed module) (" + classCount + " occurrences)")),
+                "classes/module does not count " + classCount + " classes: " + report.get(3));
+        System.out.println("Rollups match the per-class results");
+    }
+
+    /**
+     * Splits a formatted top-N line into its entries.
+     * @param line Output line such as "1a top 2: Foo (3 occurrences), Bar (2 occurrences)"
+     * @return List of formatted entries
+     */
+    private static List<String> entries(String line) {
+        return List.of(line.substring(line.indexOf(": ") + 2).split(", "));
+    }
+
+    /**
+     * Checks top-N, histogram and percentile reports on a small metric with known values.
+     */
+    private static void testReportStatistics() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 1; i <= 10; i++) counts.put("C" + i, i);
+        ReportEngine engine = new ReportEngine(Map.of("m", counts));
+
+        List<String> report = engine.toText(ReportEngine.ReportSpec.parseAll("m:top=2:hist=3,8:pct=10,50,90,100"));
+        check(report.equals(List.of(
+                "m top 2: C10 (10 occurrences), C9 (9 occurrences)",
+                "m histogram: (-inf, 3) 2, [3, 8) 5, [8, +inf) 3",
+                "m percentiles: p10 1, p50 5, p90 9, p100 10")), "unexpected report statistics: " + report);
+        System.out.println("Report statistics are correct");
+    }
+
+    /**
+     * Checks the JSON form of top-N, histogram and percentile reports on a small metric with known values.
+     */
+    private static void testReportJson() {
+        Map<String, Integer> counts = Map.of("C1", 1, "C2", 2, "C3", 3);
+        ReportEngine engine = new ReportEngine(Map.of("m", counts));
+
+        List<String> report = engine.toJson(ReportEngine.ReportSpec.parseAll("m:top=2:hist=2:pct=50"));
+        check(report.equals(List.of(
+                "[",
+                "  {\"metric\": \"m\", \"count\": 3, "
+                        + "\"top\": {\"2\": [{\"name\": \"C3\", \"value\": 3}, {\"name\": \"C2\", \"value\": 2}]}, "
+                        + "\"histogram\": [{\"from\": null, \"to\": 2, \"count\": 1}, {\"from\": 2, \"to\": null, \"count\": 2}], "
+                        + "\"percentiles\": {\"50\": 2}}",
+                "]")), "unexpected JSON report: " + report);
+        System.out.println("JSON report is correct");
+    }
+
+    /**
+     * Checks that malformed report specifications are rejected.
+     */
+    private static void testReportSpecErrors() {
+        for (String spec : List.of("2b:top=3:top=5", "2b:top=-1", "2b", "2b:hist=5,1", "2b:pct=101", "2b:size=3",
+                                   "2b:pct=NaN", "2b:top=2,2", "2b:pct=50,50.0")) {
+            try {
+                ReportEngine.ReportSpec.parseAll(spec);
+                check(false, "report specification " + spec + " was accepted");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        check(ReportEngine.ReportSpec.parse("2b:top=10:pct=50").equals(ReportEngine.ReportSpec.parse("2b:top=10:pct=50")),
+                "equal report specifications are not equal");
+        System.out.println("Malformed report specifications are rejected");
+    }
+
+    /**
+     * Runs Main with two arguments that do not form an explicit --out option, and with --out naming a list of
+     * class names, and checks that neither scans the JDK into that list.
+     * @throws IOException if the copy of the input file cannot be written or read
+     */
+    private static void testOutputFileArgumentProtectsInputList() throws IOException {
+        File inputCopy = File.createTempFile("input", ".txt");
+        inputCopy.deleteOnExit();
+        Files.copy(new File(INPUT_FILE).toPath(), inputCopy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        List<String> expected = Files.readAllLines(inputCopy.toPath());
+
+        Main.reset();
+        runQuietly(() -> Main.main(new String[] { inputCopy.getPath(), "10" }));
+        runQuietly(() -> Main.main(new String[] { "--out=" + inputCopy.getPath(), "10" }));
+
+        check(Files.readAllLines(inputCopy.toPath()).equals(expected), "a two-argument run overwrote a list of class names");
+        System.out.println("Output file argument protects input lists");
+    }
+
+    /**
+     * Checks the allocation and throughput budgets on the commons-lang3 classes.
+     * @throws IOException if the input file cannot be read
+     * @throws ClassNotFoundException if a listed class cannot be loaded
+     */
+    private static void testLibraryBudgets() throws IOException, ClassNotFoundException {
+        checkBudgets("commons-lang3", libraryClasses(), LIBRARY_BYTES_PER_CLASS, LIBRARY_CLASSES_PER_SECOND);
+    }
+
+    /**
+     * Loads the commons-lang3 classes listed in the input file.
+     * @return List of loaded classes
+     * @throws IOException if the input file cannot be read
+     * @throws ClassNotFoundException if a listed class cannot be loaded
+     */
+    private static List<Class<?>> libraryClasses() throws IOException, ClassNotFoundException {
+        List<Class<?>> classes = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(INPUT_FILE))) {
+            String typeName;
+            while ((typeName = br.readLine()) != null) {
+                if (typeName.endsWith("package-info") || typeName.endsWith("module-info") || typeName.contains("META-INF")) continue;
+                classes.add(Class.forName(typeName));
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Checks the allocation and throughput budgets on a fixed synthetic hierarchy.
+     */
+    private static void testSyntheticBudgets() {
+        List<Class<?>> classes = new SyntheticHierarchy(6, 4, 2, 4, 2_000).loadAll();
+        checkBudgets("synthetic", classes, SYNTHETIC_BYTES_PER_CLASS, SYNTHETIC_CLASSES_PER_SECOND);
+    }
+
+    /**
+     * Measures Main.exploreHierarchy and the default output over a corpus and records a failure for every exceeded budget.
+     * @param corpus Name of the corpus, used in messages
+     * @param classes Classes to analyze
+     * @param maxBytesPerClass Largest allowed allocation per analyzed class
+     * @param minClassesPerSecond Smallest allowed throughput
+     */
+    private static void checkBudgets(String corpus, List<Class<?>> classes, long maxBytesPerClass,
+                                     long minClassesPerSecond) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        for (int i = 0; i < WARMUP_RUNS; i++) analyze(classes);
+
+        long[] elapsedPerRun = new long[MEASURED_RUNS], allocatedPerRun = new long[MEASURED_RUNS];
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            analyze(classes);
+            elapsedPerRun[i] = Math.max(System.nanoTime() - start, 1);
+            allocatedPerRun[i] = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        }
+        Arrays.sort(elapsedPerRun);
+        Arrays.sort(allocatedPerRun);
+        long elapsed = elapsedPerRun[0], allocated = allocatedPerRun[MEASURED_RUNS / 2];
+
+        long bytesPerClass = allocated / classes.size();
+        long classesPerSecond = classes.size() * 1_000_000_000L / elapsed;
+        System.out.println(corpus + ": " + classes.size() + " classes, " + bytesPerClass + " bytes/class, "
+                + classesPerSecond + " classes/s");
+
+        check(bytesPerClass <= maxBytesPerClass,
+                corpus + " allocates " + bytesPerClass + " bytes/class, budget is " + maxBytesPerClass);
+        check(classesPerSecond >= minClassesPerSecond,
+                corpus + " analyzes " + classesPerSecond + " classes/s, budget is " + minClassesPerSecond);
+    }
+
+    /**
+     * Runs Main.exploreHierarchy over every class and ranks the results, starting from empty results.
+     * @param classes Classes to analyze
+     */
+    private static void analyze(List<Class<?>> classes) {
+        Main.reset();
+        for (Class<?> clazz : classes) Main.exploreHierarchy(clazz);
+        Main.outputLines(TOP_N);
+        Main.reset();
+    }
+
+    /**
+     * Runs an action with standard output discarded, hiding the per-class progress lines of Main.
+     * @param action The action to run
+     */
+    private static void runQuietly(Runnable action) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            action.run();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Records a failure if the condition does not hold.
+     * @param condition Condition expected to be true
+     * @param message Description of the failure
+     */
+    private static void check(boolean condition, String message) {
+        if (!condition) failures.add(message);
+    }
+}